@@ -5,11 +5,31 @@ import java.io.ByteArrayOutputStream;
 public class ByteArraySWriter extends SWriter {
 
 	public ByteArraySWriter() {
-		super(new ByteArrayOutputStream());
+		super(new Buffer());
 	}
 
 	public byte[] toByteArray() {
 		return ((ByteArrayOutputStream)getStream()).toByteArray();
 	}
 
+	public int size() {
+		return ((ByteArrayOutputStream)getStream()).size();
+	}
+
+	/** Discards what was written so far, keeping the buffer for reuse. */
+	public void reset() {
+		((ByteArrayOutputStream)getStream()).reset();
+	}
+
+	/** The internal buffer, valid up to {@link #size()}. */
+	byte[] array() {
+		return ((Buffer)getStream()).array();
+	}
+
+	private static class Buffer extends ByteArrayOutputStream {
+
+		byte[] array() {
+			return buf;
+		}
+	}
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2009, Judison Oliveira Gil Filho <judison@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS ''AS IS''
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.judison.sio;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksum. {@link #create()} returns the JDK's
+ * <code>java.util.zip.CRC32C</code> when running on Java 9 or later, which is
+ * hardware accelerated, and this slicing-by-8 implementation otherwise.
+ */
+class CRC32C implements Checksum {
+
+	private static final int POLY = 0x82F63B78; // reflected
+
+	private static final int[][] T = new int[8][256];
+
+	static {
+		for (int n = 0; n < 256; n++) {
+			int c = n;
+			for (int k = 0; k < 8; k++)
+				c = (c & 1) != 0 ? (c >>> 1) ^ POLY : c >>> 1;
+			T[0][n] = c;
+		}
+		for (int n = 0; n < 256; n++)
+			for (int k = 1; k < 8; k++)
+				T[k][n] = (T[k - 1][n] >>> 8) ^ T[0][T[k - 1][n] & 0xff];
+	}
+
+	private static final Class<?> jdkClass;
+
+	static {
+		Class<?> cls = null;
+		try {
+			cls = Class.forName("java.util.zip.CRC32C");
+		} catch (Throwable e) {}
+		jdkClass = cls;
+	}
+
+	static Checksum create() {
+		if (jdkClass != null) {
+			try {
+				return (Checksum)jdkClass.getConstructor().newInstance();
+			} catch (Throwable e) {}
+		}
+		return new CRC32C();
+	}
+
+	private int crc = 0xffffffff;
+
+	@Override
+	public void update(int b) {
+		crc = (crc >>> 8) ^ T[0][(crc ^ b) & 0xff];
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len) {
+		int c = crc;
+		while (len >= 8) {
+			c ^= (0xff & b[off]) | (0xff & b[off + 1]) << 8 | (0xff & b[off + 2]) << 16 | (0xff & b[off + 3]) << 24;
+			c = T[7][c & 0xff] ^ T[6][(c >>> 8) & 0xff] ^ T[5][(c >>> 16) & 0xff] ^ T[4][c >>> 24] //
+				^ T[3][0xff & b[off + 4]] ^ T[2][0xff & b[off + 5]] ^ T[1][0xff & b[off + 6]] ^ T[0][0xff & b[off + 7]];
+			off += 8;
+			len -= 8;
+		}
+		while (len-- > 0)
+			c = (c >>> 8) ^ T[0][(c ^ b[off++]) & 0xff];
+		crc = c;
+	}
+
+	@Override
+	public long getValue() {
+		return ~crc & 0xffffffffL;
+	}
+
+	@Override
+	public void reset() {
+		crc = 0xffffffff;
+	}
+}
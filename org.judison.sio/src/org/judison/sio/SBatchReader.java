@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2009, Judison Oliveira Gil Filho <judison@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS ''AS IS''
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.judison.sio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.judison.sio.annot.ReadAttr;
+
+/**
+ * Reads a batch written by {@link SWriter#writeBatch(List)}. Columns can only be
+ * read in the order they were written; the ones not asked for are skipped
+ * without being decoded.
+ */
+public class SBatchReader {
+
+	/** Columns larger than this are read in pieces, growing with the data. */
+	private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+	private final SReader reader;
+	private final int size;
+	private final int[] ids;
+	private final String[] names;
+	private final int[] lengths;
+	private int next;
+
+	SBatchReader(SReader reader) throws IOException {
+		this.reader = reader;
+		this.size = reader.readInt();
+		int count = reader.readInt();
+		if (size < 0 || count < 0)
+			throw new IOException("Invalid batch header: " + size + " objects, " + count + " columns");
+		// count comes from the stream: grow with the entries actually read
+		List<Integer> idList = new ArrayList<Integer>();
+		List<String> nameList = new ArrayList<String>();
+		List<Integer> lengthList = new ArrayList<Integer>();
+		for (int c = 0; c < count; c++) {
+			int id = reader.readByte();
+			String name = reader.readString();
+			int length = reader.readInt();
+			if (length < 0)
+				throw new IOException("Invalid batch header: column " + name + " of " + length + " bytes");
+			idList.add(id);
+			nameList.add(name);
+			lengthList.add(length);
+		}
+		ids = new int[count];
+		names = nameList.toArray(new String[count]);
+		lengths = new int[count];
+		for (int c = 0; c < count; c++) {
+			ids[c] = idList.get(c);
+			lengths[c] = lengthList.get(c);
+		}
+	}
+
+	/** Number of objects in the batch. */
+	public int size() {
+		return size;
+	}
+
+	/** Names of the attribute columns, in the order they can be read. */
+	public String[] getColumnNames() {
+		int count = 0;
+		for (int id: ids)
+			if (id != SWriter.ATTR_ID_CUSTOM)
+				count++;
+		String[] result = new String[count];
+		int i = 0;
+		for (int c = 0; c < ids.length; c++)
+			if (ids[c] != SWriter.ATTR_ID_CUSTOM)
+				result[i++] = names[c];
+		return result;
+	}
+
+	/**
+	 * Decodes the column of the attribute <code>name</code>, skipping the columns
+	 * before it. Returns <code>null</code> if there is no such column.
+	 */
+	public SColumn readColumn(String name) throws IOException {
+		int c = 0;
+		while (c < ids.length && (ids[c] == SWriter.ATTR_ID_CUSTOM || !names[c].equals(name)))
+			c++;
+		if (c == ids.length)
+			return null;
+		if (c < next)
+			throw new IllegalStateException("Column already read or skipped: " + name);
+		skipTo(c);
+		return nextColumn();
+	}
+
+	/**
+	 * Reads the remaining columns into <code>objects</code>, calling their
+	 * <code>@ReadAttr</code> methods one column at a time.
+	 */
+	public void readObjects(List<? extends SReadable> objects) throws IOException {
+		if (objects.size() != size)
+			throw new IllegalArgumentException("Batch has " + size + " objects, not " + objects.size());
+		while (next < ids.length) {
+			SColumn column = nextColumn();
+			if (column.getId() == SWriter.ATTR_ID_CUSTOM) {
+				byte[][] data = (byte[][])column.getValues();
+				for (int i = 0; i < size; i++)
+					if (data[i] != null)
+						objects.get(i).customRead(new SReader(new ByteArrayInputStream(data[i])));
+			} else if (size > 0)
+				readAttr(objects, column);
+		}
+	}
+
+	/** Skips the columns not read yet, leaving the reader after the batch. */
+	public void skipRemaining() throws IOException {
+		skipTo(ids.length);
+	}
+
+	private void skipTo(int c) throws IOException {
+		long skip = 0;
+		for (; next < c; next++)
+			skip += lengths[next];
+		reader.skipFully(skip);
+	}
+
+	private SColumn nextColumn() throws IOException {
+		byte[] data = readData(lengths[next]);
+		SColumn column = new SColumn(names[next], ids[next], size, data);
+		next++;
+		return column;
+	}
+
+	/**
+	 * Reads <code>len</code> bytes; large lengths are read in pieces, so a
+	 * corrupt one fails at the end of the stream instead of allocating it all.
+	 */
+	private byte[] readData(int len) throws IOException {
+		if (len <= READ_CHUNK_SIZE) {
+			byte[] data = new byte[len];
+			reader.readFully(data, 0, len);
+			return data;
+		}
+		ByteArrayOutputStream os = new ByteArrayOutputStream(READ_CHUNK_SIZE);
+		byte[] chunk = new byte[READ_CHUNK_SIZE];
+		while (len > 0) {
+			int n = Math.min(len, chunk.length);
+			reader.readFully(chunk, 0, n);
+			os.write(chunk, 0, n);
+			len -= n;
+		}
+		return os.toByteArray();
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void readAttr(List<? extends SReadable> objects, SColumn column) {
+		Class<?> cls = objects.get(0).getClass();
+		for (Method m: cls.getMethods()) {
+			if (m.isAnnotationPresent(ReadAttr.class) && m.getAnnotation(ReadAttr.class).value().equals(column.getName())) {
+				Class<?>[] types = m.getParameterTypes();
+				if (types.length != 1)
+					throw new RuntimeException("Invalid method for @ReadAttr: " + cls.getName() + "." + m.getName());
+				Class<?> type = types[0];
+				if (!accepts(column.getId(), type))
+					throw new RuntimeException("Invalid type to call @ReadAttr: " + cls.getName() + "." + m.getName());
+				try {
+					for (int i = 0; i < objects.size(); i++) {
+						Object v = column.get(i);
+						if (v != null && column.getId() == SWriter.ATTR_ID_ENUM)
+							v = Enum.valueOf((Class<? extends Enum>)type, (String)v);
+						else if (v != null && column.getId() == SWriter.ATTR_ID_BLOB)
+							v = new ByteArrayInputStream((byte[])v);
+						m.invoke(objects.get(i), new Object[] { v });
+					}
+				} catch (Throwable e) {
+					throw new RuntimeException("Error reading " + column.getName(), e);
+				}
+			}
+		}
+	}
+
+	private static boolean accepts(int id, Class<?> type) {
+		switch (id) {
+			case SWriter.ATTR_ID_BYTE:
+				return type.equals(Byte.class) || type.equals(Byte.TYPE);
+			case SWriter.ATTR_ID_SHORT:
+				return type.equals(Short.class) || type.equals(Short.TYPE);
+			case SWriter.ATTR_ID_INT:
+				return type.equals(Integer.class) || type.equals(Integer.TYPE);
+			case SWriter.ATTR_ID_LONG:
+				return type.equals(Long.class) || type.equals(Long.TYPE);
+			case SWriter.ATTR_ID_FLOAT:
+				return type.equals(Float.class) || type.equals(Float.TYPE);
+			case SWriter.ATTR_ID_DOUBLE:
+				return type.equals(Double.class) || type.equals(Double.TYPE);
+			case SWriter.ATTR_ID_BOOLEAN:
+				return type.equals(Boolean.class) || type.equals(Boolean.TYPE);
+			case SWriter.ATTR_ID_CHAR:
+				return type.equals(Character.class) || type.equals(Character.TYPE);
+			case SWriter.ATTR_ID_STRING:
+				return type.equals(String.class);
+			case SWriter.ATTR_ID_ENUM:
+				return type.isEnum();
+			case SWriter.ATTR_ID_BLOB:
+				return type.equals(InputStream.class);
+			default:
+				return false;
+		}
+	}
+}
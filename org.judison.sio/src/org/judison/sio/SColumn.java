@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2009, Judison Oliveira Gil Filho <judison@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS ''AS IS''
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.judison.sio;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A decoded column of a batch, see {@link SBatchReader#readColumn(String)}.
+ * <p>
+ * The values are kept in a single array of the attribute's primitive type
+ * (<code>int[]</code> for <code>int</code> and <code>Integer</code>
+ * attributes, and so on), <code>String[]</code> for strings and enums (by
+ * name) and <code>byte[][]</code> for <code>InputStream</code> attributes,
+ * with <code>size()</code> elements. Null values are zero in primitive
+ * arrays; use {@link #isNull(int)} to tell them apart.
+ */
+public class SColumn {
+
+	private static final Charset utf8 = Charset.forName("UTF-8");
+
+	private final String name;
+	private final int id;
+	private final int size;
+	private final byte[] nulls;
+	private final Object values;
+
+	SColumn(String name, int id, int size, byte[] data) throws IOException {
+		this.name = name;
+		this.id = id;
+		this.size = size;
+		try {
+			// every count comes from the stream, so check it against the bytes
+			// it needs before allocating anything for it
+			ByteBuffer bb = ByteBuffer.wrap(data);
+			int flags = bb.get();
+			int nonNull = size;
+			if ((flags & SWriter.COLUMN_HAS_NULLS) != 0) {
+				long bitmap = (size + 7L) / 8;
+				need(bb, bitmap, "null bitmap");
+				nulls = new byte[(int)bitmap];
+				bb.get(nulls);
+				for (int i = 0; i < size; i++)
+					if (isNull(i))
+						nonNull--;
+			} else
+				nulls = null;
+			String[] dict = null;
+			if ((flags & SWriter.COLUMN_DICTIONARY) != 0) {
+				int dictSize = bb.getInt();
+				if (dictSize < 0)
+					throw new IOException("Invalid column " + name + ": dictionary of " + dictSize);
+				need(bb, 4L * dictSize, "dictionary");
+				dict = new String[dictSize];
+				for (int i = 0; i < dict.length; i++)
+					dict[i] = new String(readBytes(bb), utf8);
+			}
+			need(bb, (long)nonNull * width(dict), "values");
+			values = decode(bb, dict);
+		} catch (RuntimeException e) {
+			// BufferUnderflowException and friends
+			throw new IOException("Invalid column " + name, e);
+		}
+	}
+
+	private void need(ByteBuffer bb, long n, String what) throws IOException {
+		if (bb.remaining() < n)
+			throw new IOException("Invalid column " + name + ": " + what + " needs " + n + " bytes, " + bb.remaining() + " left");
+	}
+
+	/** Minimum number of bytes taken by each non-null value. */
+	private int width(String[] dict) throws IOException {
+		switch (id) {
+			case SWriter.ATTR_ID_BYTE:
+			case SWriter.ATTR_ID_BOOLEAN:
+				return 1;
+			case SWriter.ATTR_ID_SHORT:
+			case SWriter.ATTR_ID_CHAR:
+				return 2;
+			case SWriter.ATTR_ID_INT:
+			case SWriter.ATTR_ID_FLOAT:
+				return 4;
+			case SWriter.ATTR_ID_LONG:
+			case SWriter.ATTR_ID_DOUBLE:
+				return 8;
+			case SWriter.ATTR_ID_STRING:
+			case SWriter.ATTR_ID_ENUM:
+				if (dict == null)
+					return 4;
+				return dict.length <= 0x100 ? 1 : dict.length <= 0x10000 ? 2 : 4;
+			case SWriter.ATTR_ID_BLOB:
+			case SWriter.ATTR_ID_CUSTOM:
+				return 4;
+			default:
+				throw new IOException("Invalid column type " + id + ": " + name);
+		}
+	}
+
+	private Object decode(ByteBuffer bb, String[] dict) throws IOException {
+		switch (id) {
+			case SWriter.ATTR_ID_BYTE: {
+				byte[] v = new byte[size];
+				if (nulls == null)
+					bb.get(v);
+				else
+					for (int i = 0; i < size; i++)
+						if (!isNull(i))
+							v[i] = bb.get();
+				return v;
+			}
+			case SWriter.ATTR_ID_SHORT: {
+				short[] v = new short[size];
+				if (nulls == null)
+					bb.asShortBuffer().get(v);
+				else
+					for (int i = 0; i < size; i++)
+						if (!isNull(i))
+							v[i] = bb.getShort();
+				return v;
+			}
+			case SWriter.ATTR_ID_INT: {
+				int[] v = new int[size];
+				if (nulls == null)
+					bb.asIntBuffer().get(v);
+				else
+					for (int i = 0; i < size; i++)
+						if (!isNull(i))
+							v[i] = bb.getInt();
+				return v;
+			}
+			case SWriter.ATTR_ID_LONG: {
+				long[] v = new long[size];
+				if (nulls == null)
+					bb.asLongBuffer().get(v);
+				else
+					for (int i = 0; i < size; i++)
+						if (!isNull(i))
+							v[i] = bb.getLong();
+				return v;
+			}
+			case SWriter.ATTR_ID_FLOAT: {
+				float[] v = new float[size];
+				if (nulls == null)
+					bb.asFloatBuffer().get(v);
+				else
+					for (int i = 0; i < size; i++)
+						if (!isNull(i))
+							v[i] = bb.getFloat();
+				return v;
+			}
+			case SWriter.ATTR_ID_DOUBLE: {
+				double[] v = new double[size];
+				if (nulls == null)
+					bb.asDoubleBuffer().get(v);
+				else
+					for (int i = 0; i < size; i++)
+						if (!isNull(i))
+							v[i] = bb.getDouble();
+				return v;
+			}
+			case SWriter.ATTR_ID_BOOLEAN: {
+				boolean[] v = new boolean[size];
+				for (int i = 0; i < size; i++)
+					if (!isNull(i))
+						v[i] = bb.get() == 1;
+				return v;
+			}
+			case SWriter.ATTR_ID_CHAR: {
+				char[] v = new char[size];
+				if (nulls == null)
+					bb.asCharBuffer().get(v);
+				else
+					for (int i = 0; i < size; i++)
+						if (!isNull(i))
+							v[i] = bb.getChar();
+				return v;
+			}
+			case SWriter.ATTR_ID_STRING:
+			case SWriter.ATTR_ID_ENUM: {
+				String[] v = new String[size];
+				for (int i = 0; i < size; i++) {
+					if (isNull(i))
+						continue;
+					if (dict == null)
+						v[i] = new String(readBytes(bb), utf8);
+					else if (dict.length <= 0x100)
+						v[i] = dict[0xff & bb.get()];
+					else if (dict.length <= 0x10000)
+						v[i] = dict[0xffff & bb.getShort()];
+					else
+						v[i] = dict[bb.getInt()];
+				}
+				return v;
+			}
+			case SWriter.ATTR_ID_BLOB:
+			case SWriter.ATTR_ID_CUSTOM: {
+				byte[][] v = new byte[size][];
+				for (int i = 0; i < size; i++)
+					if (!isNull(i))
+						v[i] = readBytes(bb);
+				return v;
+			}
+			default:
+				throw new IOException("Invalid column type " + id + ": " + name);
+		}
+	}
+
+	private static byte[] readBytes(ByteBuffer bb) {
+		int len = bb.getInt();
+		if (len < 0)
+			return null;
+		if (len > bb.remaining())
+			throw new BufferUnderflowException();
+		byte[] data = new byte[len];
+		bb.get(data);
+		return data;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	int getId() {
+		return id;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isNull(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException();
+		return nulls != null && (nulls[index >> 3] & (1 << (index & 7))) != 0;
+	}
+
+	/** The array with all the values, see the class description. */
+	public Object getValues() {
+		return values;
+	}
+
+	/** The value at <code>index</code>, boxed, or <code>null</code>. */
+	public Object get(int index) {
+		if (isNull(index))
+			return null;
+		return Array.get(values, index);
+	}
+}
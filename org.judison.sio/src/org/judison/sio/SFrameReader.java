@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2009, Judison Oliveira Gil Filho <judison@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS ''AS IS''
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.judison.sio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Checksum;
+
+/**
+ * Reads records written by {@link SFrameWriter}. Frames with a bad sync marker,
+ * header or payload CRC are skipped by scanning forward for the next valid
+ * frame, so a torn or damaged region costs only the records in it. Lengths are
+ * checked against the header CRC and <code>maxRecordSize</code> before anything
+ * is allocated; a valid header for a record over <code>maxRecordSize</code> is
+ * an <code>IOException</code>, not damage, so it is never skipped silently.
+ */
+public class SFrameReader implements Closeable {
+
+	public static final int DEFAULT_MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+	private static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+	private final InputStream stream;
+	private final int maxRecordSize;
+	private final Checksum crc = CRC32C.create();
+
+	private byte[] buf = new byte[MIN_BUFFER_SIZE];
+	private int pos;
+	private int limit;
+	private boolean eof;
+
+	private long skippedBytes;
+	private int damagedRegions;
+	private boolean damaged;
+
+	public SFrameReader(InputStream stream) {
+		this(stream, DEFAULT_MAX_RECORD_SIZE);
+	}
+
+	public SFrameReader(InputStream stream, int maxRecordSize) {
+		SFrameWriter.checkMaxRecordSize(maxRecordSize);
+		this.stream = stream;
+		this.maxRecordSize = maxRecordSize;
+	}
+
+	/**
+	 * Returns the payload of the next valid record, or <code>null</code> at the
+	 * end of the stream.
+	 */
+	public byte[] readRecord() throws IOException {
+		while (true) {
+			if (!fill(4)) {
+				skip(limit - pos);
+				return null;
+			}
+			if (getInt(pos) != SFrameWriter.MAGIC) {
+				// jump to the next byte that could start a marker
+				int i = pos + 1;
+				while (i < limit && buf[i] != (byte)(SFrameWriter.MAGIC >>> 24))
+					i++;
+				skip(i - pos);
+				continue;
+			}
+			if (!fill(SFrameWriter.HEADER_SIZE)) {
+				// torn header at the end
+				skip(limit - pos);
+				return null;
+			}
+			int len = getInt(pos + 4);
+			crc.reset();
+			crc.update(buf, pos + 4, 4);
+			if (getInt(pos + 8) != (int)crc.getValue() || len < 0) {
+				skip(1);
+				continue;
+			}
+			SFrameWriter.checkRecordSize(len, maxRecordSize);
+			if (!fill(SFrameWriter.HEADER_SIZE + len)) {
+				// torn payload, there may still be frames in what was read
+				skip(1);
+				continue;
+			}
+			int start = pos + SFrameWriter.HEADER_SIZE;
+			crc.reset();
+			crc.update(buf, start, len);
+			if (getInt(pos + 12) != (int)crc.getValue()) {
+				skip(1);
+				continue;
+			}
+			byte[] data = new byte[len];
+			System.arraycopy(buf, start, data, 0, len);
+			pos = start + len;
+			damaged = false;
+			return data;
+		}
+	}
+
+	/**
+	 * Reads the next valid record into <code>object</code>. Returns
+	 * <code>false</code> at the end of the stream.
+	 */
+	public boolean readRecord(SReadable object) throws IOException {
+		byte[] data = readRecord();
+		if (data == null)
+			return false;
+		new SReader(data).readObject(object);
+		return true;
+	}
+
+	/** Bytes skipped so far because they weren't part of a valid frame. */
+	public long getSkippedBytes() {
+		return skippedBytes;
+	}
+
+	/** Number of contiguous regions skipped so far. */
+	public int getDamagedRegions() {
+		return damagedRegions;
+	}
+
+	private void skip(int n) {
+		if (n <= 0)
+			return;
+		pos += n;
+		skippedBytes += n;
+		if (!damaged) {
+			damaged = true;
+			damagedRegions++;
+		}
+	}
+
+	/**
+	 * Makes sure there are <code>n</code> bytes available from <code>pos</code>.
+	 * Returns <code>false</code> if the stream ends before that.
+	 */
+	private boolean fill(int n) throws IOException {
+		if (limit - pos >= n)
+			return true;
+		if (eof)
+			return false;
+		if (buf.length < n) {
+			byte[] b = new byte[Math.max(n, Math.min(buf.length * 2, maxRecordSize + SFrameWriter.HEADER_SIZE))];
+			System.arraycopy(buf, pos, b, 0, limit - pos);
+			buf = b;
+		} else if (pos > 0)
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+		limit -= pos;
+		pos = 0;
+		while (limit < n) {
+			int r = stream.read(buf, limit, buf.length - limit);
+			if (r == -1) {
+				eof = true;
+				return false;
+			}
+			limit += r;
+		}
+		return true;
+	}
+
+	private int getInt(int off) {
+		return (//
+		/*    */(0xff & buf[off]) << 24 | //
+			(0xff & buf[off + 1]) << 16 | //
+			(0xff & buf[off + 2]) << 8 | //
+		/*    */(0xff & buf[off + 3]) << 0);
+	}
+
+	@Override
+	public void close() throws IOException {
+		stream.close();
+	}
+}
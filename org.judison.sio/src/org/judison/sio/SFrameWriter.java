@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2009, Judison Oliveira Gil Filho <judison@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS ''AS IS''
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.judison.sio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Checksum;
+
+/**
+ * Writes records in frames that let {@link SFrameReader} detect corruption and
+ * resynchronize after it. Each frame is:
+ * 
+ * <pre>
+ * sync marker (4) | payload length (4) | CRC-32C of length (4) | CRC-32C of payload (4) | payload
+ * </pre>
+ * 
+ * Records over <code>maxRecordSize</code> are rejected, as a reader with the
+ * same limit couldn't read them back.
+ */
+public class SFrameWriter implements Closeable {
+
+	static final int MAGIC = 0xA553494F;
+	static final int HEADER_SIZE = 16;
+
+	private final OutputStream stream;
+	private final int maxRecordSize;
+	private final Checksum crc = CRC32C.create();
+	private final byte[] header = new byte[HEADER_SIZE];
+	private final ByteArraySWriter encoder = new ByteArraySWriter();
+
+	public SFrameWriter(OutputStream stream) {
+		this(stream, SFrameReader.DEFAULT_MAX_RECORD_SIZE);
+	}
+
+	public SFrameWriter(OutputStream stream, int maxRecordSize) {
+		checkMaxRecordSize(maxRecordSize);
+		this.stream = stream;
+		this.maxRecordSize = maxRecordSize;
+	}
+
+	public void writeRecord(SWriteable object) throws IOException {
+		encoder.reset();
+		encoder.writeObject(object);
+		writeRecord(encoder.array(), 0, encoder.size());
+	}
+
+	public void writeRecord(byte[] data) throws IOException {
+		writeRecord(data, 0, data.length);
+	}
+
+	public void writeRecord(byte[] data, int off, int len) throws IOException {
+		checkRecordSize(len, maxRecordSize);
+		crc.reset();
+		crc.update(data, off, len);
+		writeHeader(header, 0, len, (int)crc.getValue(), crc);
+		stream.write(header);
+		stream.write(data, off, len);
+	}
+
+	static void checkMaxRecordSize(int maxRecordSize) {
+		// frames are buffered whole, header included, and sizes must not overflow
+		if (maxRecordSize <= 0 || maxRecordSize > Integer.MAX_VALUE - HEADER_SIZE)
+			throw new IllegalArgumentException("Invalid max record size: " + maxRecordSize);
+	}
+
+	static void checkRecordSize(int len, int maxRecordSize) throws IOException {
+		if (len > maxRecordSize)
+			throw new IOException("Record of " + len + " bytes exceeds the maximum of " + maxRecordSize);
+	}
+
+	/**
+	 * Writes a frame header for <code>len</code> bytes of payload with the given
+	 * CRC at <code>b[off]</code>. <code>crc</code> is used to checksum the length.
+	 */
+	static void writeHeader(byte[] b, int off, int len, int payloadCrc, Checksum crc) {
+		putInt(b, off, MAGIC);
+		putInt(b, off + 4, len);
+		crc.reset();
+		crc.update(b, off + 4, 4);
+		putInt(b, off + 8, (int)crc.getValue());
+		putInt(b, off + 12, payloadCrc);
+	}
+
+	private static void putInt(byte[] b, int off, int v) {
+		b[off] = (byte)((v >> 24) & 0xff);
+		b[off + 1] = (byte)((v >> 16) & 0xff);
+		b[off + 2] = (byte)((v >> 8) & 0xff);
+		b[off + 3] = (byte)((v >> 0) & 0xff);
+	}
+
+	public void flush() throws IOException {
+		stream.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		stream.close();
+	}
+}
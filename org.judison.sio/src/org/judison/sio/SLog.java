@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2009, Judison Oliveira Gil Filho <judison@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the copyright holder nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS ''AS IS''
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.judison.sio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Checksum;
+
+/**
+ * Append-only log of {@link SWriteable} objects that can be written by many
+ * threads at once.
+ * <p>
+ * Each producer thread encodes its objects with its own {@link SWriter}, then
+ * claims space in the current in-memory segment with a CAS and copies the
+ * encoded bytes there. A single flusher thread writes the segments to the
+ * channel in order. The result is the same as calling
+ * {@link SWriter#writeObject(SWriteable)} for each object, so the log can be
+ * read back with {@link SReader#readObject(SReadable)}.
+ * <p>
+ * When created as <code>framed</code>, each object is written in a frame with a
+ * CRC-32C computed by the producer thread, to be read back with
+ * {@link SFrameReader}. Objects over
+ * {@link SFrameReader#DEFAULT_MAX_RECORD_SIZE} are then rejected.
+ * <p>
+ * At most <code>maxSegments</code> segments are held in memory; producers park
+ * until the flusher retires one when they are all full. Written segments are
+ * not reused, as a producer may still be looking at them.
+ */
+public class SLog implements Closeable {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+	public static final int DEFAULT_MAX_SEGMENTS = 16;
+
+	private final WritableByteChannel channel;
+	private final int segmentSize;
+	private final int maxSegments;
+	private final boolean framed;
+
+	private final AtomicReference<Segment> current;
+	private final AtomicInteger liveSegments = new AtomicInteger(1);
+
+	private final Thread flusher;
+	/** Set while the flusher is about to park, so producers know to wake it. */
+	private volatile boolean flusherIdle;
+	/** Set once the flusher won't write anything else. */
+	private volatile boolean stopped;
+	/** Threads parked until the flusher makes progress. */
+	private final Queue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+	private volatile long written;
+	private volatile boolean closed;
+	private volatile Throwable error;
+
+	private final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+
+		@Override
+		protected Encoder initialValue() {
+			return new Encoder();
+		}
+	};
+
+	public SLog(WritableByteChannel channel) {
+		this(channel, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS, false);
+	}
+
+	public SLog(WritableByteChannel channel, boolean framed) {
+		this(channel, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS, framed);
+	}
+
+	public SLog(WritableByteChannel channel, int segmentSize, int maxSegments) {
+		this(channel, segmentSize, maxSegments, false);
+	}
+
+	public SLog(WritableByteChannel channel, int segmentSize, int maxSegments, boolean framed) {
+		if (segmentSize <= 0)
+			throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+		if (maxSegments < 2)
+			throw new IllegalArgumentException("Invalid max segments: " + maxSegments);
+		this.channel = channel;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		this.framed = framed;
+		this.current = new AtomicReference<Segment>(new Segment(segmentSize, 0));
+		this.flusher = new Thread(new Flusher(current.get()), "SLog flusher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	public void append(SWriteable object) throws IOException {
+		if (closed)
+			throw new IOException("Log closed");
+		Encoder enc = encoders.get();
+		if (enc.busy) // append called from inside customWrite
+			enc = new Encoder();
+		enc.busy = true;
+		try {
+			enc.reset();
+			if (framed) {
+				// room for the header, filled once the payload is known
+				enc.writeLong(0);
+				enc.writeLong(0);
+			}
+			enc.writeObject(object);
+			if (framed) {
+				int len = enc.size() - SFrameWriter.HEADER_SIZE;
+				SFrameWriter.checkRecordSize(len, SFrameReader.DEFAULT_MAX_RECORD_SIZE);
+				enc.crc.reset();
+				enc.crc.update(enc.array(), SFrameWriter.HEADER_SIZE, len);
+				SFrameWriter.writeHeader(enc.array(), 0, len, (int)enc.crc.getValue(), enc.crc);
+			}
+			append(enc.array(), enc.size());
+		} finally {
+			enc.busy = false;
+		}
+	}
+
+	private void append(byte[] data, int len) throws IOException {
+		while (true) {
+			if (closed)
+				throw new IOException("Log closed");
+			checkFlusher();
+			Segment seg = current.get();
+			int pos = seg.claimed.get();
+			if (pos >= 0 && pos + len <= seg.data.length) {
+				if (seg.claimed.compareAndSet(pos, pos + len)) {
+					System.arraycopy(data, 0, seg.data, pos, len);
+					seg.committed.addAndGet(len);
+					if (flusherIdle)
+						LockSupport.unpark(flusher);
+					if (closed) // the flusher may be past it already
+						awaitWritten(seg.base + pos + len);
+					return;
+				}
+			} else if (pos < 0 || seg.claimed.compareAndSet(pos, -pos - 1)) {
+				// sealed, by us or by another producer
+				advance(seg, len);
+			}
+		}
+	}
+
+	/**
+	 * Makes sure the sealed segment <code>seg</code> has a successor and that it
+	 * is the current one. Any producer can do it, so none waits for the one that
+	 * sealed the segment.
+	 */
+	private void advance(Segment seg, int len) {
+		Segment next = seg.next.get();
+		if (next == null) {
+			if (!reserveSegment()) {
+				// too many segments waiting to be written
+				awaitFlusher(seg, -1);
+				return;
+			}
+			Segment n = new Segment(Math.max(len, segmentSize), seg.base + seg.sealedSize());
+			if (!seg.next.compareAndSet(null, n))
+				liveSegments.decrementAndGet();
+			else
+				LockSupport.unpark(flusher);
+			next = seg.next.get();
+		}
+		current.compareAndSet(seg, next);
+	}
+
+	private boolean reserveSegment() {
+		int n;
+		do {
+			n = liveSegments.get();
+			if (n >= maxSegments)
+				return false;
+		} while (!liveSegments.compareAndSet(n, n + 1));
+		return true;
+	}
+
+	private void checkError() throws IOException {
+		Throwable e = error;
+		if (e != null)
+			throw new IOException("Error writing log", e);
+	}
+
+	/**
+	 * Parks until the flusher makes progress: until it retires a segment if
+	 * <code>seg</code> is not <code>null</code>, otherwise until it has
+	 * written up to <code>end</code>. May return early; callers check again.
+	 */
+	private void awaitFlusher(Segment seg, long end) {
+		Thread t = Thread.currentThread();
+		waiters.add(t);
+		try {
+			// checked after queueing, so a wakeup from the flusher can't be missed
+			boolean wait = seg != null ? liveSegments.get() >= maxSegments && seg.next.get() == null : written < end;
+			if (wait && !stopped && !closed) {
+				LockSupport.unpark(flusher);
+				LockSupport.park(this);
+			}
+		} finally {
+			waiters.remove(t);
+		}
+	}
+
+	/**
+	 * Waits for the flusher to write up to <code>end</code>, failing if it
+	 * stops before that.
+	 */
+	private void awaitWritten(long end) throws IOException {
+		while (written < end) {
+			if (stopped) {
+				checkError();
+				if (written < end)
+					throw new IOException("Log closed");
+				return;
+			}
+			Thread t = Thread.currentThread();
+			waiters.add(t);
+			try {
+				if (written < end && !stopped) {
+					LockSupport.unpark(flusher);
+					LockSupport.park(this);
+				}
+			} finally {
+				waiters.remove(t);
+			}
+		}
+	}
+
+	/** Fails if nothing will be written anymore. */
+	private void checkFlusher() throws IOException {
+		checkError();
+		if (stopped) {
+			checkError(); // it may have stopped just now
+			throw new IOException("Log closed");
+		}
+	}
+
+	private void wakeWaiters() {
+		for (Thread t: waiters)
+			LockSupport.unpark(t);
+	}
+
+	/**
+	 * Waits until every object appended before this call has been written to
+	 * the channel.
+	 */
+	public void flush() throws IOException {
+		Segment seg = current.get();
+		int c = seg.claimed.get();
+		long target = seg.base + (c < 0 ? -c - 1 : c);
+		while (written < target) {
+			checkFlusher();
+			awaitFlusher(null, target);
+		}
+	}
+
+	/**
+	 * Writes everything appended so far and closes the channel. An append
+	 * running concurrently with this call either gets its object written or
+	 * fails with an <code>IOException</code>.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		LockSupport.unpark(flusher);
+		boolean interrupted = false;
+		while (flusher.isAlive()) {
+			try {
+				flusher.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		channel.close();
+		checkError();
+	}
+
+	private class Flusher implements Runnable {
+
+		private Segment seg;
+		private int flushed;
+
+		Flusher(Segment first) {
+			this.seg = first;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					// read before the claims: a producer claiming after this
+					// sees the log closed and waits for or fails its write
+					boolean closing = closed;
+					int c = seg.claimed.get();
+					boolean sealed = c < 0;
+					int end = sealed ? -c - 1 : c;
+					int k = seg.committed.get();
+					// committed bytes can only match the claimed ones when all of
+					// them were copied, as long as no claim happened meanwhile
+					boolean complete = k == end && (sealed || seg.claimed.get() == c);
+					if (complete && end > flushed) {
+						ByteBuffer bb = ByteBuffer.wrap(seg.data, flushed, end - flushed);
+						while (bb.hasRemaining())
+							channel.write(bb);
+						flushed = end;
+						written = seg.base + end;
+						wakeWaiters();
+						continue;
+					}
+					if (complete && sealed) {
+						Segment next = seg.next.get();
+						if (next != null) {
+							liveSegments.decrementAndGet();
+							wakeWaiters();
+							seg = next;
+							flushed = 0;
+							continue;
+						}
+					}
+					// no successor is coming once producers see the log closed
+					if (complete && closing)
+						return;
+					// nothing to do until a producer claims, commits, installs a
+					// segment or closes; they check the flag after doing so
+					flusherIdle = true;
+					if (seg.claimed.get() == c && seg.committed.get() == k && (!sealed || seg.next.get() == null) && closed == closing)
+						LockSupport.park(this);
+					flusherIdle = false;
+				}
+			} catch (Throwable e) {
+				// unchecked ones too (e.g. NonWritableChannelException), or
+				// producers would wait forever for room
+				error = e;
+			} finally {
+				stopped = true;
+				wakeWaiters();
+			}
+		}
+	}
+
+	private static final class Segment {
+
+		final byte[] data;
+		/** Position of <code>data[0]</code> in the log. */
+		final long base;
+		/** Bytes claimed by producers, or <code>-size - 1</code> once sealed. */
+		final AtomicInteger claimed = new AtomicInteger();
+		/** Bytes already copied by producers. */
+		final AtomicInteger committed = new AtomicInteger();
+		final AtomicReference<Segment> next = new AtomicReference<Segment>();
+
+		Segment(int size, long base) {
+			this.data = new byte[size];
+			this.base = base;
+		}
+
+		int sealedSize() {
+			return -claimed.get() - 1;
+		}
+	}
+
+	private static final class Encoder extends ByteArraySWriter {
+
+		final Checksum crc = CRC32C.create();
+		boolean busy;
+	}
+}
@@ -30,10 +30,16 @@ package org.judison.sio;
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.EOFException;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.util.List;
 
 import org.judison.sio.annot.ReadAttr;
 
@@ -177,26 +183,205 @@ public class SReader implements Closeable {
 		return data;
 	}
 
-	private static final int ATTR_ID_END = 0;
-	private static final int ATTR_ID_NULL = 1;
-	private static final int ATTR_ID_BYTE = 2;
-	private static final int ATTR_ID_SHORT = 3;
-	private static final int ATTR_ID_INT = 4;
-	private static final int ATTR_ID_LONG = 5;
-	private static final int ATTR_ID_FLOAT = 6;
-	private static final int ATTR_ID_DOUBLE = 7;
-	private static final int ATTR_ID_BOOLEAN = 8;
-	private static final int ATTR_ID_CHAR = 9;
-	private static final int ATTR_ID_STRING = 10;
-	private static final int ATTR_ID_ENUM = 11;
-	//...
-	private static final int ATTR_ID_CUSTOM = 50;
+	void readFully(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = stream.read(b, off, len);
+			if (n == -1)
+				throw new EOFException();
+			off += n;
+			len -= n;
+		}
+	}
+
+	void skipFully(long n) throws IOException {
+		while (n > 0) {
+			long s = stream.skip(n);
+			if (s <= 0) {
+				if (stream.read() == -1)
+					throw new EOFException();
+				s = 1;
+			}
+			n -= s;
+		}
+	}
+
+	/** Reads the first chunk size of a blob, <code>-1</code> meaning <code>null</code>. */
+	private int readBlobSize() throws IOException {
+		int size = readInt();
+		if (size < -1)
+			throw new IOException("Invalid blob chunk size: " + size);
+		return size;
+	}
+
+	private int readChunkSize() throws IOException {
+		int size = readInt();
+		if (size < 0)
+			throw new IOException("Invalid blob chunk size: " + size);
+		return size;
+	}
+
+	/**
+	 * Returns a view over a blob written by {@link SWriter#writeBlob(InputStream)}.
+	 * Only the current chunk is tracked, so the blob is never held in memory. The
+	 * returned stream must be consumed or closed before anything else is read from
+	 * this reader; closing it skips whatever is left of the blob.
+	 */
+	public InputStream readBlob() throws IOException {
+		int size = readBlobSize();
+		if (size == -1)
+			return null;
+		return new BlobInputStream(size);
+	}
+
+	/**
+	 * Copies a blob to <code>out</code> in bounded chunks. Returns the number of
+	 * bytes copied, or <code>-1</code> if the blob was <code>null</code>.
+	 */
+	public long readBlob(OutputStream out) throws IOException {
+		int size = readBlobSize();
+		if (size == -1)
+			return -1;
+		// chunk sizes come from the stream, so copy them through a bounded buffer
+		byte[] chunk = new byte[Math.min(Math.max(size, 1), SWriter.BLOB_CHUNK_SIZE)];
+		long total = 0;
+		while (size > 0) {
+			int left = size;
+			while (left > 0) {
+				int n = Math.min(left, chunk.length);
+				readFully(chunk, 0, n);
+				out.write(chunk, 0, n);
+				left -= n;
+			}
+			total += size;
+			size = readChunkSize();
+		}
+		return total;
+	}
+
+	/**
+	 * Copies a blob to <code>out</code>. When reading from a file the chunks are
+	 * moved with {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+	 * otherwise they are copied through a buffer of at most
+	 * {@link SWriter#BLOB_CHUNK_SIZE} bytes. Returns the number of
+	 * bytes copied, or <code>-1</code> if the blob was <code>null</code>.
+	 */
+	public long readBlob(WritableByteChannel out) throws IOException {
+		int size = readBlobSize();
+		if (size == -1)
+			return -1;
+		FileChannel channel = stream instanceof FileInputStream ? ((FileInputStream)stream).getChannel() : null;
+		ByteBuffer chunk = null;
+		long total = 0;
+		while (size > 0) {
+			if (channel != null) {
+				long pos = channel.position();
+				long done = 0;
+				while (done < size) {
+					long n = channel.transferTo(pos + done, size - done, out);
+					if (n <= 0 && pos + done >= channel.size())
+						throw new EOFException();
+					done += n;
+				}
+				channel.position(pos + size);
+			} else {
+				if (chunk == null)
+					chunk = ByteBuffer.allocate(Math.min(size, SWriter.BLOB_CHUNK_SIZE));
+				int left = size;
+				while (left > 0) {
+					int n = Math.min(left, chunk.capacity());
+					chunk.clear();
+					readFully(chunk.array(), 0, n);
+					chunk.limit(n);
+					while (chunk.hasRemaining())
+						out.write(chunk);
+					left -= n;
+				}
+			}
+			total += size;
+			size = readChunkSize();
+		}
+		return total;
+	}
+
+	private class BlobInputStream extends InputStream {
+
+		private int remaining;
+
+		BlobInputStream(int size) {
+			// an empty blob is just the terminator, already read
+			this.remaining = size == 0 ? -1 : size;
+		}
+
+		private boolean nextChunk() throws IOException {
+			if (remaining == -1)
+				return false;
+			if (remaining == 0) {
+				remaining = readChunkSize();
+				if (remaining == 0) {
+					remaining = -1;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!nextChunk())
+				return -1;
+			int c = stream.read();
+			if (c == -1)
+				throw new EOFException();
+			remaining--;
+			return c;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!nextChunk())
+				return -1;
+			int n = stream.read(b, off, Math.min(len, remaining));
+			if (n == -1)
+				throw new EOFException();
+			remaining -= n;
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return remaining > 0 ? Math.min(remaining, stream.available()) : 0;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = 0;
+			while (skipped < n && nextChunk()) {
+				long s = stream.skip(Math.min(n - skipped, remaining));
+				if (s <= 0) {
+					if (stream.read() == -1)
+						throw new EOFException();
+					s = 1;
+				}
+				remaining -= s;
+				skipped += s;
+			}
+			return skipped;
+		}
+
+		@Override
+		public void close() throws IOException {
+			while (nextChunk())
+				skip(remaining);
+		}
+	}
 
 	@SuppressWarnings("unchecked")
 	public void readObject(SReadable object) throws IOException {
 		byte id = readByte();
-		while (id != ATTR_ID_END) {
-			if (id < ATTR_ID_CUSTOM) {
+		while (id != SWriter.ATTR_ID_END) {
+			if (id < SWriter.ATTR_ID_CUSTOM) {
 				String name = readString();
 				for (Method m: object.getClass().getMethods()) {
 					if (m.isAnnotationPresent(ReadAttr.class) && m.getAnnotation(ReadAttr.class).value().equals(name)) {
@@ -206,59 +391,70 @@ public class SReader implements Closeable {
 								throw new RuntimeException("Invalid method for @ReadAttr: " + object.getClass().getName() + "." + m.getName());
 							Class<?> type = types[0];
 							switch (id) {
-								case ATTR_ID_NULL:
+								case SWriter.ATTR_ID_NULL:
 									m.invoke(object, new Object[] { null });
 									break;
-								case ATTR_ID_BYTE:
+								case SWriter.ATTR_ID_BYTE:
 									if (!type.equals(Byte.class) && !type.equals(Byte.TYPE))
 										throw new RuntimeException("Invalid type to call @ReadAttr: " + object.getClass().getName() + "." + m.getName());
 									m.invoke(object, readByte());
 									break;
-								case ATTR_ID_SHORT:
+								case SWriter.ATTR_ID_SHORT:
 									if (!type.equals(Short.class) && !type.equals(Short.TYPE))
 										throw new RuntimeException("Invalid type to call @ReadAttr: " + object.getClass().getName() + "." + m.getName());
 									m.invoke(object, readShort());
 									break;
-								case ATTR_ID_INT:
+								case SWriter.ATTR_ID_INT:
 									if (!type.equals(Integer.class) && !type.equals(Integer.TYPE))
 										throw new RuntimeException("Invalid type to call @ReadAttr: " + object.getClass().getName() + "." + m.getName());
 									m.invoke(object, readInt());
 									break;
-								case ATTR_ID_LONG:
+								case SWriter.ATTR_ID_LONG:
 									if (!type.equals(Long.class) && !type.equals(Long.TYPE))
 										throw new RuntimeException("Invalid type to call @ReadAttr: " + object.getClass().getName() + "." + m.getName());
 									m.invoke(object, readLong());
 									break;
-								case ATTR_ID_FLOAT:
+								case SWriter.ATTR_ID_FLOAT:
 									if (!type.equals(Float.class) && !type.equals(Float.TYPE))
 										throw new RuntimeException("Invalid type to call @ReadAttr: " + object.getClass().getName() + "." + m.getName());
 									m.invoke(object, readFloat());
 									break;
-								case ATTR_ID_DOUBLE:
+								case SWriter.ATTR_ID_DOUBLE:
 									if (!type.equals(Double.class) && !type.equals(Double.TYPE))
 										throw new RuntimeException("Invalid type to call @ReadAttr: " + object.getClass().getName() + "." + m.getName());
 									m.invoke(object, readDouble());
 									break;
-								case ATTR_ID_BOOLEAN:
+								case SWriter.ATTR_ID_BOOLEAN:
 									if (!type.equals(Boolean.class) && !type.equals(Boolean.TYPE))
 										throw new RuntimeException("Invalid type to call @ReadAttr: " + object.getClass().getName() + "." + m.getName());
 									m.invoke(object, readBoolean());
 									break;
-								case ATTR_ID_CHAR:
+								case SWriter.ATTR_ID_CHAR:
 									if (!type.equals(Character.class) && !type.equals(Character.TYPE))
 										throw new RuntimeException("Invalid type to call @ReadAttr: " + object.getClass().getName() + "." + m.getName());
 									m.invoke(object, readChar());
 									break;
-								case ATTR_ID_STRING:
+								case SWriter.ATTR_ID_STRING:
 									if (!type.equals(String.class))
 										throw new RuntimeException("Invalid type to call @ReadAttr: " + object.getClass().getName() + "." + m.getName());
 									m.invoke(object, readString());
 									break;
-								case ATTR_ID_ENUM:
+								case SWriter.ATTR_ID_ENUM:
 									if (!type.isEnum())
 										throw new RuntimeException("Invalid type to call @ReadAttr: " + object.getClass().getName() + "." + m.getName());
 									m.invoke(object, readEnum((Class<? extends Enum>)type));
 									break;
+								case SWriter.ATTR_ID_BLOB:
+									if (!type.equals(InputStream.class))
+										throw new RuntimeException("Invalid type to call @ReadAttr: " + object.getClass().getName() + "." + m.getName());
+									InputStream blob = readBlob();
+									try {
+										m.invoke(object, blob);
+									} finally {
+										if (blob != null)
+											blob.close();
+									}
+									break;
 							}
 						} catch (IOException e) {
 							throw e;
@@ -267,7 +463,7 @@ public class SReader implements Closeable {
 						}
 					}
 				}
-			} else if (id == ATTR_ID_CUSTOM) {
+			} else if (id == SWriter.ATTR_ID_CUSTOM) {
 				byte[] data = readByteArray();
 				ByteArrayInputStream is = new ByteArrayInputStream(data);
 				SReader sub = new SReader(is);
@@ -277,6 +473,24 @@ public class SReader implements Closeable {
 		}
 	}
 
+	/**
+	 * Starts reading a batch written by {@link SWriter#writeBatch(List)}. The
+	 * returned reader gives access to single columns; it must be done (see
+	 * {@link SBatchReader#skipRemaining()}) before anything else is read from
+	 * this reader.
+	 */
+	public SBatchReader readBatch() throws IOException {
+		return new SBatchReader(this);
+	}
+
+	/**
+	 * Reads a batch written by {@link SWriter#writeBatch(List)} into
+	 * <code>objects</code>, column by column.
+	 */
+	public void readBatch(List<? extends SReadable> objects) throws IOException {
+		readBatch().readObjects(objects);
+	}
+
 	@Override
 	public void close() throws IOException {
 		stream.close();
@@ -30,9 +30,16 @@ package org.judison.sio;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.judison.sio.annot.WriteAttr;
 
@@ -44,6 +51,9 @@ public class SWriter implements Closeable {
 
 	private byte[] buf = new byte[8];
 
+	/** Maximum size of each chunk written by {@link #writeBlob(InputStream)}. */
+	public static final int BLOB_CHUNK_SIZE = 64 * 1024;
+
 	public SWriter(OutputStream stream) {
 		this.stream = stream;
 	}
@@ -144,20 +154,72 @@ public class SWriter implements Closeable {
 		}
 	}
 
-	private static final int ATTR_ID_END = 0;
-	private static final int ATTR_ID_NULL = 1;
-	private static final int ATTR_ID_BYTE = 2;
-	private static final int ATTR_ID_SHORT = 3;
-	private static final int ATTR_ID_INT = 4;
-	private static final int ATTR_ID_LONG = 5;
-	private static final int ATTR_ID_FLOAT = 6;
-	private static final int ATTR_ID_DOUBLE = 7;
-	private static final int ATTR_ID_BOOLEAN = 8;
-	private static final int ATTR_ID_CHAR = 9;
-	private static final int ATTR_ID_STRING = 10;
-	private static final int ATTR_ID_ENUM = 11;
+	/**
+	 * Writes the contents of <code>data</code> as a sequence of chunks, each one
+	 * preceded by its length and the last one followed by a zero length, so the
+	 * total size doesn't need to be known up front and only one chunk is kept in
+	 * memory. A <code>null</code> stream is written as <code>-1</code>, like in
+	 * {@link #writeByteArray(byte[])}. The stream is not closed.
+	 */
+	public void writeBlob(InputStream data) throws IOException {
+		if (data == null) {
+			writeInt(-1);
+			return;
+		}
+		byte[] chunk = new byte[BLOB_CHUNK_SIZE];
+		while (true) {
+			int len = 0;
+			int n;
+			while (len < chunk.length && (n = data.read(chunk, len, chunk.length - len)) != -1)
+				len += n;
+			if (len == 0)
+				break;
+			writeInt(len);
+			stream.write(chunk, 0, len);
+		}
+		writeInt(0);
+	}
+
+	/**
+	 * Same as {@link #writeBlob(InputStream)}, reading from a channel. The
+	 * channel is not closed.
+	 */
+	public void writeBlob(ReadableByteChannel data) throws IOException {
+		if (data == null) {
+			writeInt(-1);
+			return;
+		}
+		ByteBuffer chunk = ByteBuffer.allocate(BLOB_CHUNK_SIZE);
+		while (true) {
+			chunk.clear();
+			while (chunk.hasRemaining() && data.read(chunk) != -1)
+				;
+			if (chunk.position() == 0)
+				break;
+			writeInt(chunk.position());
+			stream.write(chunk.array(), 0, chunk.position());
+		}
+		writeInt(0);
+	}
+
+	static final int ATTR_ID_END = 0;
+	static final int ATTR_ID_NULL = 1;
+	static final int ATTR_ID_BYTE = 2;
+	static final int ATTR_ID_SHORT = 3;
+	static final int ATTR_ID_INT = 4;
+	static final int ATTR_ID_LONG = 5;
+	static final int ATTR_ID_FLOAT = 6;
+	static final int ATTR_ID_DOUBLE = 7;
+	static final int ATTR_ID_BOOLEAN = 8;
+	static final int ATTR_ID_CHAR = 9;
+	static final int ATTR_ID_STRING = 10;
+	static final int ATTR_ID_ENUM = 11;
+	static final int ATTR_ID_BLOB = 12;
 	//...
-	private static final int ATTR_ID_CUSTOM = 50;
+	static final int ATTR_ID_CUSTOM = 50;
+
+	static final int COLUMN_HAS_NULLS = 1;
+	static final int COLUMN_DICTIONARY = 2;
 
 	public void writeObject(SWriteable object) throws IOException {
 		for (Method m: object.getClass().getMethods()) {
@@ -267,6 +329,20 @@ public class SWriter implements Closeable {
 							writeString(name);
 							writeEnum(v);
 						}
+					} else if (InputStream.class.isAssignableFrom(ret)) {
+						InputStream v = (InputStream)m.invoke(object);
+						if (v == null) {
+							writeByte(ATTR_ID_NULL);
+							writeString(name);
+						} else {
+							writeByte(ATTR_ID_BLOB);
+							writeString(name);
+							try {
+								writeBlob(v);
+							} finally {
+								v.close();
+							}
+						}
 					} else
 						throw new RuntimeException("Invalid return type for @WriteAttr in " + object.getClass().getName() + "." + m.getName());
 				} catch (IOException e) {
@@ -287,6 +363,209 @@ public class SWriter implements Closeable {
 		writeByte(ATTR_ID_END);
 	}
 
+	/**
+	 * Writes a batch of objects of the same class column by column: each
+	 * <code>@WriteAttr</code> attribute is written once for the whole batch, as
+	 * a null bitmap followed by the non-null values. Strings and enums are
+	 * dictionary encoded when they repeat. Every column is preceded by its size
+	 * in the batch header, so a reader can decode just the columns it needs. See
+	 * {@link SReader#readBatch()}.
+	 * <p>
+	 * <code>InputStream</code> attributes become a column of byte arrays, so in
+	 * a batch each blob is read whole into memory.
+	 */
+	public void writeBatch(List<? extends SWriteable> objects) throws IOException {
+		int n = objects.size();
+		Class<?> cls = n == 0 ? null : objects.get(0).getClass();
+		for (SWriteable object: objects)
+			if (object.getClass() != cls)
+				throw new IllegalArgumentException("Batch objects must be of the same class: " + cls.getName() + ", " + object.getClass().getName());
+
+		List<Integer> ids = new ArrayList<Integer>();
+		List<String> names = new ArrayList<String>();
+		List<byte[]> columns = new ArrayList<byte[]>();
+		if (cls != null) {
+			for (Method m: cls.getMethods()) {
+				if (m.isAnnotationPresent(WriteAttr.class)) {
+					String name = m.getAnnotation(WriteAttr.class).value();
+					Class<?> ret = m.getReturnType();
+					if (ret == null || m.getParameterTypes().length != 0)
+						throw new RuntimeException("Invalid method for @WriteAttr: " + m.getName());
+					int id = columnId(ret);
+					if (id == -1)
+						throw new RuntimeException("Invalid return type for @WriteAttr in " + cls.getName() + "." + m.getName());
+					Object[] values = new Object[n];
+					try {
+						for (int i = 0; i < n; i++)
+							values[i] = m.invoke(objects.get(i));
+					} catch (Throwable e) {
+						throw new RuntimeException("Error writing " + name, e);
+					}
+					if (id == ATTR_ID_BLOB)
+						for (int i = 0; i < n; i++)
+							if (values[i] != null)
+								values[i] = readBlobData((InputStream)values[i]);
+					ids.add(id);
+					names.add(name);
+					columns.add(encodeColumn(id, values));
+				}
+			}
+			// Custom
+			Object[] custom = new Object[n];
+			boolean hasCustom = false;
+			for (int i = 0; i < n; i++) {
+				ByteArrayOutputStream os = new ByteArrayOutputStream();
+				SWriter sub = new SWriter(os);
+				objects.get(i).customWrite(sub);
+				if (os.size() > 0) {
+					custom[i] = os.toByteArray();
+					hasCustom = true;
+				}
+			}
+			if (hasCustom) {
+				ids.add(ATTR_ID_CUSTOM);
+				names.add("");
+				columns.add(encodeColumn(ATTR_ID_CUSTOM, custom));
+			}
+		}
+
+		writeInt(n);
+		writeInt(columns.size());
+		for (int c = 0; c < columns.size(); c++) {
+			writeByte(ids.get(c));
+			writeString(names.get(c));
+			writeInt(columns.get(c).length);
+		}
+		for (byte[] column: columns)
+			stream.write(column);
+	}
+
+	private static int columnId(Class<?> type) {
+		if (type.equals(Byte.TYPE) || type.equals(Byte.class))
+			return ATTR_ID_BYTE;
+		else if (type.equals(Short.TYPE) || type.equals(Short.class))
+			return ATTR_ID_SHORT;
+		else if (type.equals(Integer.TYPE) || type.equals(Integer.class))
+			return ATTR_ID_INT;
+		else if (type.equals(Long.TYPE) || type.equals(Long.class))
+			return ATTR_ID_LONG;
+		else if (type.equals(Float.TYPE) || type.equals(Float.class))
+			return ATTR_ID_FLOAT;
+		else if (type.equals(Double.TYPE) || type.equals(Double.class))
+			return ATTR_ID_DOUBLE;
+		else if (type.equals(Boolean.TYPE) || type.equals(Boolean.class))
+			return ATTR_ID_BOOLEAN;
+		else if (type.equals(Character.TYPE) || type.equals(Character.class))
+			return ATTR_ID_CHAR;
+		else if (type.equals(String.class))
+			return ATTR_ID_STRING;
+		else if (type.isEnum())
+			return ATTR_ID_ENUM;
+		else if (InputStream.class.isAssignableFrom(type))
+			return ATTR_ID_BLOB;
+		else
+			return -1;
+	}
+
+	private static byte[] readBlobData(InputStream data) throws IOException {
+		try {
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+			byte[] chunk = new byte[BLOB_CHUNK_SIZE];
+			int n;
+			while ((n = data.read(chunk)) != -1)
+				os.write(chunk, 0, n);
+			return os.toByteArray();
+		} finally {
+			data.close();
+		}
+	}
+
+	private static byte[] encodeColumn(int id, Object[] values) throws IOException {
+		int n = values.length;
+		int nonNull = 0;
+		for (Object v: values)
+			if (v != null)
+				nonNull++;
+
+		// strings and enums repeating enough go to a dictionary
+		Map<String, Integer> dict = null;
+		if (id == ATTR_ID_ENUM || id == ATTR_ID_STRING) {
+			Map<String, Integer> d = new LinkedHashMap<String, Integer>();
+			for (Object v: values)
+				if (v != null) {
+					String str = id == ATTR_ID_ENUM ? ((Enum<?>)v).name() : (String)v;
+					if (!d.containsKey(str))
+						d.put(str, d.size());
+				}
+			if (id == ATTR_ID_ENUM || d.size() * 2 <= nonNull)
+				dict = d;
+		}
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		SWriter w = new SWriter(os);
+		int flags = (nonNull < n ? COLUMN_HAS_NULLS : 0) | (dict != null ? COLUMN_DICTIONARY : 0);
+		w.writeByte(flags);
+		if (nonNull < n) {
+			byte[] nulls = new byte[(n + 7) / 8];
+			for (int i = 0; i < n; i++)
+				if (values[i] == null)
+					nulls[i >> 3] |= 1 << (i & 7);
+			os.write(nulls);
+		}
+		if (dict != null) {
+			w.writeInt(dict.size());
+			for (String str: dict.keySet())
+				w.writeString(str);
+		}
+		for (Object v: values) {
+			if (v == null)
+				continue;
+			switch (id) {
+				case ATTR_ID_BYTE:
+					w.writeByte((Byte)v);
+					break;
+				case ATTR_ID_SHORT:
+					w.writeShort((Short)v);
+					break;
+				case ATTR_ID_INT:
+					w.writeInt((Integer)v);
+					break;
+				case ATTR_ID_LONG:
+					w.writeLong((Long)v);
+					break;
+				case ATTR_ID_FLOAT:
+					w.writeFloat((Float)v);
+					break;
+				case ATTR_ID_DOUBLE:
+					w.writeDouble((Double)v);
+					break;
+				case ATTR_ID_BOOLEAN:
+					w.writeBoolean((Boolean)v);
+					break;
+				case ATTR_ID_CHAR:
+					w.writeChar((Character)v);
+					break;
+				case ATTR_ID_STRING:
+				case ATTR_ID_ENUM:
+					String str = id == ATTR_ID_ENUM ? ((Enum<?>)v).name() : (String)v;
+					if (dict == null)
+						w.writeString(str);
+					else if (dict.size() <= 0x100)
+						w.writeByte(dict.get(str));
+					else if (dict.size() <= 0x10000)
+						w.writeShort(dict.get(str));
+					else
+						w.writeInt(dict.get(str));
+					break;
+				case ATTR_ID_BLOB:
+				case ATTR_ID_CUSTOM:
+					w.writeByteArray((byte[])v);
+					break;
+			}
+		}
+		return os.toByteArray();
+	}
+
 	@Override
 	public void close() throws IOException {
 		stream.close();